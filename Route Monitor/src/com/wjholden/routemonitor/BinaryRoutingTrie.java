@@ -1,9 +1,14 @@
 package com.wjholden.routemonitor;
 
 import java.awt.Color;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  *
@@ -17,8 +22,19 @@ public class BinaryRoutingTrie implements Trie {
     private final long id;
     private static long counter = 0;
     private Instant modified, lastSeen;
+    private final FlapStatistics statistics;
+    private int flaps;
+    private double penalty;
+    private long penaltyUpdated;
+    private long changes;
+    private static final int UNSTABLE = 10, CANDIDATES = 100;
 
     public BinaryRoutingTrie() {
+        this(new FlapStatistics(UNSTABLE, CANDIDATES));
+    }
+
+    private BinaryRoutingTrie(FlapStatistics statistics) {
+        this.statistics = statistics;
         children = new BinaryRoutingTrie[2];
         metric = -1;
         id = counter;
@@ -28,15 +44,25 @@ public class BinaryRoutingTrie implements Trie {
     }
 
     @Override
-    public synchronized boolean set(int ip, int mask, int metric) {
+    public boolean set(int ip, int mask, int metric) {
+        return set(ip, mask, metric, ip, mask);
+    }
+
+    // The prefix and prefixMask ride along unshifted so that the node at the
+    // bottom knows which route it is when reporting a flap.
+    private synchronized boolean set(int ip, int mask, int metric, int prefix, int prefixMask) {
         if (mask == 0) {
             // always update the last seen time, even if we don't change anything
             lastSeen = Instant.now();
             
             if (this.metric != metric) {
+                if (this.metric != -1) {
+                    flap(metric, prefix, prefixMask);
+                }
                 this.metric = metric;
                 this.modified = lastSeen;
                 this.setPopulation();
+                changes++;
                 return true; // change made, allows for logging
             }
             
@@ -44,16 +70,38 @@ public class BinaryRoutingTrie implements Trie {
         } else {
             int i = (ip >>> 31);
             if (children[i] == null) {
-                children[i] = new BinaryRoutingTrie();
+                children[i] = new BinaryRoutingTrie(statistics);
             }
-            boolean childChanged = children[i].set(ip << 1, mask << 1, metric);
+            boolean childChanged = children[i].set(ip << 1, mask << 1, metric, prefix, prefixMask);
             if (childChanged) {
                 this.setPopulation();
+                changes++;
             }
             return childChanged;
         }
     }
 
+    private void flap(int metric, int prefix, int prefixMask) {
+        // Penalties as in BGP dampening: a withdrawal costs the most, a
+        // readvertisement after withdrawal costs nothing, and anything else
+        // in between is half a withdrawal.
+        double cost;
+        if (metric == 16) {
+            cost = FlapStatistics.WITHDRAWAL_PENALTY;
+            flaps++;
+        } else if (this.metric == 16) {
+            cost = 0;
+        } else {
+            cost = FlapStatistics.CHANGE_PENALTY;
+        }
+        if (cost > 0) {
+            long now = lastSeen.toEpochMilli();
+            penalty = FlapStatistics.decay(penalty, penaltyUpdated, now) + cost;
+            penaltyUpdated = now;
+            statistics.update(this, prefix, prefixMask, flaps, penalty, now);
+        }
+    }
+
     private void setPopulation() {
         // I can't help myself. Memoization improves performance and
         // the use of Dynamic Programming is a nod to Richard Bellman.
@@ -129,20 +177,33 @@ public class BinaryRoutingTrie implements Trie {
         return this.population;
     }
 
+    @Override
+    public long changes() {
+        return this.changes;
+    }
+
     @Override
     public synchronized void clear() {
         children[0] = children[1] = null;
         metric = -1;
         population = 0;
         modified = Instant.now();
+        changes++;
+        statistics.clear();
+    }
+
+    @Override
+    public List<FlapStatistics.Flap> unstable() {
+        return statistics.unstable();
     }
 
     @Override
     public synchronized void purge(final Duration timeout) {
         // We do not purge poisoned routes. This is to make sure the network
         // operator notices the red line.
-        if (metric < 16 && Duration.between(this.lastSeen, Instant.now()).compareTo(timeout) > 0) {
+        if (metric != -1 && metric < 16 && Duration.between(this.lastSeen, Instant.now()).compareTo(timeout) > 0) {
             this.metric = -1;
+            statistics.remove(this);
         }
         for (int i = 0; i < 2; i++) {
             if (children[i] != null) {
@@ -152,19 +213,98 @@ public class BinaryRoutingTrie implements Trie {
                 }
             }
         }
+        double before = this.population;
         this.setPopulation();
+        if (this.population != before) {
+            changes++;
+        }
     }
 
     @Override
     public String toString() {
-        String s = String.format("  %d [label=\"%d\"];%n", id, metric);
-        for (BinaryRoutingTrie child : children) {
-            if (child != null) {
-                s += String.format("  %d -> %d;%n", this.id, child.id);
-                s += child.toString();
+        StringWriter s = new StringWriter();
+        try {
+            export(s, Format.DOT, this, 0, 0, false);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // StringWriter does not throw
+        }
+        return s.toString();
+    }
+
+    /**
+     * Writes every node under the supernet ip/mask to out, or nothing if
+     * there is no such subtrie. DOT draws the trie itself, while TABLE and
+     * CSV list only the routes with their prefix, metric, age and flaps.
+     *
+     * The walk uses an explicit stack instead of recursion. A node is popped
+     * before its children are pushed, so the stack never holds more than one
+     * pending sibling per level: 33 entries for a 32-bit address.
+     */
+    @Override
+    public synchronized void export(Writer out, Format format, int ip, int mask) throws IOException {
+        BinaryRoutingTrie root = (BinaryRoutingTrie) this.subtrie(ip, mask);
+        if (format == Format.CSV) {
+            out.write("prefix,length,metric,age,flaps,penalty\n");
+        } else if (format == Format.DOT) {
+            out.write("digraph {\n");
+        }
+        if (root != null) {
+            export(out, format, root, ip & mask, Integer.bitCount(mask), true);
+        }
+        if (format == Format.DOT) {
+            out.write("}\n");
+        }
+        out.flush();
+    }
+
+    private static void export(Writer out, Format format, BinaryRoutingTrie root, int ip, int length, boolean labels) throws IOException {
+        final BinaryRoutingTrie nodes[] = new BinaryRoutingTrie[34];
+        final int prefixes[] = new int[34], lengths[] = new int[34];
+        final long now = System.currentTimeMillis();
+        int top = 0;
+        nodes[top] = root;
+        prefixes[top] = ip;
+        lengths[top] = length;
+        top++;
+
+        while (top > 0) {
+            top--;
+            BinaryRoutingTrie node = nodes[top];
+            int prefix = prefixes[top];
+            int prefixLength = lengths[top];
+            nodes[top] = null;
+
+            if (format == Format.DOT) {
+                out.write("  " + node.id + " [label=\"" + (labels
+                        ? IP.toString(prefix) + "/" + prefixLength + "\\n" + node.metric
+                        : Integer.toString(node.metric)) + "\"];\n");
+                for (BinaryRoutingTrie child : node.children) {
+                    if (child != null) {
+                        out.write("  " + node.id + " -> " + child.id + ";\n");
+                    }
+                }
+            } else if (node.metric != -1) {
+                long age = (now - node.lastSeen.toEpochMilli()) / 1000;
+                if (format == Format.CSV) {
+                    out.write(IP.toString(prefix) + "," + prefixLength + "," + node.metric
+                            + "," + age + "," + node.flaps + ","
+                            + Math.round(FlapStatistics.decay(node.penalty, node.penaltyUpdated, now)) + "\n");
+                } else {
+                    out.write(String.format("%-19s\t%2d\t%ds%n",
+                            IP.toString(prefix) + "/" + prefixLength, node.metric, age));
+                }
+            }
+
+            // push 1 before 0 so that routes come out in address order
+            for (int i = 1 ; i >= 0 ; i--) {
+                if (node.children[i] != null) {
+                    nodes[top] = node.children[i];
+                    prefixes[top] = prefix | (i << (31 - prefixLength));
+                    lengths[top] = prefixLength + 1;
+                    top++;
+                }
             }
         }
-        return s;
     }
 
     public static void main(String args[]) {
@@ -244,6 +384,41 @@ public class BinaryRoutingTrie implements Trie {
         }
     }
 
+    @Override
+    public int[] flapColor(int ip, int mask) {
+        final BinaryRoutingTrie root = (BinaryRoutingTrie) this.subtrie(ip, mask);
+        final int size = 1 << (32 - Integer.bitCount(mask));
+        final int color[] = new int[size];
+        if (root != null) {
+            flapColor(root, color, 0, size, System.currentTimeMillis());
+        } else {
+            Arrays.fill(color, Color.BLACK.getRGB());
+        }
+        return color;
+    }
+
+    private static void flapColor(BinaryRoutingTrie trie, int color[], int position, int count, long now) {
+        if (count == 0) {
+            return;
+        }
+        if (trie.metric > 0 && trie.metric <= 16) {
+            double p = FlapStatistics.decay(trie.penalty, trie.penaltyUpdated, now);
+            if (p >= 1) {
+                // yellow for a single change fading to red at the suppress limit
+                float ratio = (float) Math.min(1, p / FlapStatistics.SUPPRESS_LIMIT);
+                Arrays.fill(color, position, position + count, Color.HSBtoRGB((1 - ratio) / 6, 1, 1));
+            } else if (trie.metric < 16) {
+                Arrays.fill(color, position, position + count, Color.WHITE.getRGB());
+            }
+        }
+        if (trie.children[0] != null) {
+            flapColor(trie.children[0], color, position, count >> 1, now);
+        }
+        if (trie.children[1] != null) {
+            flapColor(trie.children[1], color, position + (count >> 1), count >> 1, now);
+        }
+    }
+
     private static Color getColor(BinaryRoutingTrie trie, Duration change) {
         Color c;
         if (trie.metric == 16
@@ -0,0 +1,327 @@
+package com.wjholden.routemonitor;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * A binary trie keyed on 128-bit IPv6 addresses. This is the same structure as
+ * {@link BinaryRoutingTrie}, except that each step shifts a bit out of the high
+ * long and carries the top bit of the low long into its place.
+ *
+ * @author William John Holden (wjholden@gmail.com)
+ */
+public class BinaryRoutingTrie6 implements Trie6 {
+
+    private final BinaryRoutingTrie6 children[];
+    private int metric;
+    private double population;
+    private final long id;
+    private static long counter = 0;
+    private Instant modified, lastSeen;
+    private long changes;
+
+    public BinaryRoutingTrie6() {
+        children = new BinaryRoutingTrie6[2];
+        metric = -1;
+        id = counter;
+        counter++;
+        modified = lastSeen = Instant.EPOCH;
+        population = 0;
+    }
+
+    @Override
+    public synchronized boolean set(long high, long low, int length, int metric) {
+        if (length == 0) {
+            // always update the last seen time, even if we don't change anything
+            lastSeen = Instant.now();
+
+            if (this.metric != metric) {
+                this.metric = metric;
+                this.modified = lastSeen;
+                this.setPopulation();
+                changes++;
+                return true; // change made, allows for logging
+            }
+
+            return false; // no change made
+        } else {
+            int i = (int) (high >>> 63);
+            if (children[i] == null) {
+                children[i] = new BinaryRoutingTrie6();
+            }
+            boolean childChanged = children[i].set((high << 1) | (low >>> 63), low << 1, length - 1, metric);
+            if (childChanged) {
+                this.setPopulation();
+                changes++;
+            }
+            return childChanged;
+        }
+    }
+
+    private void setPopulation() {
+        // Poisoned routes are worth 1/1,000,000 of a size, same as IPv4.
+        this.population = (metric > 0 && metric < 16 ? 1 : 0)
+                + (metric == 16 ? 1e-6 : 0)
+                + (children[0] == null ? 0 : children[0].population)
+                + (children[1] == null ? 0 : children[1].population);
+    }
+
+    @Override
+    public synchronized Trie6 subtrie(long high, long low, int length) {
+        if (length == 0) {
+            return this;
+        }
+
+        int i = (int) (high >>> 63);
+        if (children[i] == null) {
+            return null;
+        } else {
+            return children[i].subtrie((high << 1) | (low >>> 63), low << 1, length - 1);
+        }
+    }
+
+    @Override
+    public synchronized BinaryRoutingTrie6 find(long high, long low) {
+        int i = (int) (high >>> 63);
+        if (children[i] == null) {
+            return this;
+        }
+
+        // Same corner case as the IPv4 trie: a deeper subtrie that does not
+        // match falls back to the covering route at this node.
+        BinaryRoutingTrie6 r = children[i].find((high << 1) | (low >>> 63), low << 1);
+        return r.metric == -1 ? this : r;
+    }
+
+    @Override
+    public synchronized Color find(long high, long low, Duration change) {
+        BinaryRoutingTrie6 r = this.find(high, low);
+        return r.metric == -1 ? Color.BLACK : getColor(r, change);
+    }
+
+    @Override
+    public double population() {
+        return this.population;
+    }
+
+    @Override
+    public long changes() {
+        return this.changes;
+    }
+
+    @Override
+    public synchronized void clear() {
+        children[0] = children[1] = null;
+        metric = -1;
+        population = 0;
+        modified = Instant.now();
+        changes++;
+    }
+
+    @Override
+    public synchronized void purge(final Duration timeout) {
+        // We do not purge poisoned routes. This is to make sure the network
+        // operator notices the red line.
+        if (metric < 16 && Duration.between(this.lastSeen, Instant.now()).compareTo(timeout) > 0) {
+            this.metric = -1;
+        }
+        for (int i = 0; i < 2; i++) {
+            if (children[i] != null) {
+                children[i].purge(timeout);
+                if (children[i].population == 0) {
+                    children[i] = null;
+                }
+            }
+        }
+        double before = this.population;
+        this.setPopulation();
+        if (this.population != before) {
+            changes++;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringWriter s = new StringWriter();
+        try {
+            export(s, Trie.Format.DOT, this, 0, 0, 0, false);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // StringWriter does not throw
+        }
+        return s.toString();
+    }
+
+    /**
+     * Writes every node under the supernet high:low/length to out, the same
+     * way as {@link BinaryRoutingTrie#export}. There are no flap statistics
+     * for IPv6, so the CSV stops at the age. The explicit stack holds at most
+     * 129 entries.
+     */
+    @Override
+    public synchronized void export(Writer out, Trie.Format format, long high, long low, int length) throws IOException {
+        BinaryRoutingTrie6 root = (BinaryRoutingTrie6) this.subtrie(high, low, length);
+        if (format == Trie.Format.CSV) {
+            out.write("prefix,length,metric,age\n");
+        } else if (format == Trie.Format.DOT) {
+            out.write("digraph {\n");
+        }
+        if (root != null) {
+            long highMask = length == 0 ? 0 : length >= 64 ? -1L : -1L << (64 - length);
+            long lowMask = length <= 64 ? 0 : -1L << (128 - length);
+            export(out, format, root, high & highMask, low & lowMask, length, true);
+        }
+        if (format == Trie.Format.DOT) {
+            out.write("}\n");
+        }
+        out.flush();
+    }
+
+    private static void export(Writer out, Trie.Format format, BinaryRoutingTrie6 root, long high, long low, int length, boolean labels) throws IOException {
+        final BinaryRoutingTrie6 nodes[] = new BinaryRoutingTrie6[130];
+        final long highs[] = new long[130], lows[] = new long[130];
+        final int lengths[] = new int[130];
+        final long now = System.currentTimeMillis();
+        int top = 0;
+        nodes[top] = root;
+        highs[top] = high;
+        lows[top] = low;
+        lengths[top] = length;
+        top++;
+
+        while (top > 0) {
+            top--;
+            BinaryRoutingTrie6 node = nodes[top];
+            long prefixHigh = highs[top], prefixLow = lows[top];
+            int prefixLength = lengths[top];
+            nodes[top] = null;
+
+            if (format == Trie.Format.DOT) {
+                out.write("  " + node.id + " [label=\"" + (labels
+                        ? IPv6.toString(prefixHigh, prefixLow) + "/" + prefixLength + "\\n" + node.metric
+                        : Integer.toString(node.metric)) + "\"];\n");
+                for (BinaryRoutingTrie6 child : node.children) {
+                    if (child != null) {
+                        out.write("  " + node.id + " -> " + child.id + ";\n");
+                    }
+                }
+            } else if (node.metric != -1) {
+                long age = (now - node.lastSeen.toEpochMilli()) / 1000;
+                if (format == Trie.Format.CSV) {
+                    out.write(IPv6.toString(prefixHigh, prefixLow) + "," + prefixLength + ","
+                            + node.metric + "," + age + "\n");
+                } else {
+                    out.write(String.format("%-43s\t%2d\t%ds%n",
+                            IPv6.toString(prefixHigh, prefixLow) + "/" + prefixLength, node.metric, age));
+                }
+            }
+
+            // push 1 before 0 so that routes come out in address order
+            for (int i = 1 ; i >= 0 ; i--) {
+                if (node.children[i] != null) {
+                    nodes[top] = node.children[i];
+                    highs[top] = prefixHigh | (prefixLength < 64 ? (long) i << (63 - prefixLength) : 0);
+                    lows[top] = prefixLow | (prefixLength >= 64 ? (long) i << (127 - prefixLength) : 0);
+                    lengths[top] = prefixLength + 1;
+                    top++;
+                }
+            }
+        }
+    }
+
+    /**
+     * An IPv6 supernet is far too large to draw one pixel per address, so
+     * each pixel stands for a prefix of pixelLength bits. A /48 drawn with
+     * 64-bit pixels is a 65,536-pixel image of its /64s. Routes longer than
+     * a pixel, such as /128 loopbacks, color the pixel that contains them.
+     */
+    @Override
+    public int[] color(long high, long low, int length, int pixelLength, Duration change) {
+        if (pixelLength < length || pixelLength - length > 30) {
+            throw new IllegalArgumentException("Cannot draw a /" + length + " in /" + pixelLength + " pixels");
+        }
+        final BinaryRoutingTrie6 root = (BinaryRoutingTrie6) this.subtrie(high, low, length);
+        final int size = 1 << (pixelLength - length);
+        final int color[] = new int[size];
+        if (root != null) {
+            color(root, color, 0, size, change);
+        } else {
+            Arrays.fill(color, Color.BLACK.getRGB());
+        }
+        return color;
+    }
+
+    private static void color(BinaryRoutingTrie6 trie, int color[], int position, int count, Duration change) {
+        if (count == 1) {
+            // This node is a single pixel. Anything below it is more specific
+            // than we can draw, so the most specific visible route in here,
+            // including this node's own, wins. Routes that color black (old
+            // poison, no route) are skipped so they cannot hide a covering
+            // route, just as they never overwrite one in the IPv4 trie.
+            BinaryRoutingTrie6 best[] = new BinaryRoutingTrie6[1];
+            mostSpecific(trie, 0, best, -1, change);
+            if (best[0] != null) {
+                color[position] = getColor(best[0], change).getRGB();
+            }
+            return;
+        }
+        Color c = getColor(trie, change);
+        if (c != Color.BLACK) {
+            Arrays.fill(color, position, position + count, c.getRGB());
+        }
+        if (trie.children[0] != null) {
+            color(trie.children[0], color, position, count >> 1, change);
+        }
+        if (trie.children[1] != null) {
+            color(trie.children[1], color, position + (count >> 1), count >> 1, change);
+        }
+    }
+
+    private static int mostSpecific(BinaryRoutingTrie6 trie, int depth, BinaryRoutingTrie6 best[], int bestDepth, Duration change) {
+        if (trie.metric != -1 && depth > bestDepth && getColor(trie, change) != Color.BLACK) {
+            best[0] = trie;
+            bestDepth = depth;
+        }
+        for (BinaryRoutingTrie6 child : trie.children) {
+            if (child != null) {
+                bestDepth = mostSpecific(child, depth + 1, best, bestDepth, change);
+            }
+        }
+        return bestDepth;
+    }
+
+    private static Color getColor(BinaryRoutingTrie6 trie, Duration change) {
+        Color c;
+        if (trie.metric == 16
+                && Duration.between(trie.modified, Instant.now()).compareTo(change) < 0) {
+            c = Color.RED;
+        } else if (trie.metric > 0
+                && trie.metric < 16
+                && Duration.between(trie.modified, Instant.now()).compareTo(change) < 0) {
+            c = Color.BLUE;
+        } else if (trie.metric == 0 || trie.metric > 17) {
+            c = Color.PINK; // this should be impossible. Pink is an error.
+        } else if (trie.metric > 0 && trie.metric < 16) {
+            c = Color.WHITE;
+        } else {
+            c = Color.BLACK;
+        }
+        return c;
+    }
+
+    public static void main(String args[]) {
+        BinaryRoutingTrie6 t = new BinaryRoutingTrie6();
+        long net[] = IPv6.toLongs("2001:db8:0:1::");
+        t.set(net[0], net[1], 64, 5);
+
+        long host[] = IPv6.toLongs("2001:db8:0:1::5");
+        System.out.println(t.find(host[0], host[1]).metric);
+        host = IPv6.toLongs("2001:db8:0:2::5");
+        System.out.println(t.find(host[0], host[1]).metric);
+    }
+}
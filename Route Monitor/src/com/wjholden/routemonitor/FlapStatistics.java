@@ -0,0 +1,177 @@
+package com.wjholden.routemonitor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Route flap dampening in the style of BGP (RFC 2439). Each withdrawal (metric
+ * 16) adds 1000 to a prefix's penalty, any other metric change adds 500, and
+ * the penalty halves every 15 minutes.
+ *
+ * Because every penalty decays at the same rate, the order of two prefixes
+ * never changes unless one of them flaps again. That means we can keep the
+ * most unstable prefixes in a small sorted array and only touch it when a
+ * route actually changes, instead of scanning the trie.
+ *
+ * The list is approximate. We track more candidates than we show, but a
+ * prefix that falls off the end, or whose route is purged, only comes back
+ * when it flaps again. If enough candidates are purged, fewer prefixes may be
+ * shown than are actually penalized in the trie.
+ *
+ * @author William John Holden (wjholden@gmail.com)
+ */
+public class FlapStatistics {
+
+    public static final Duration HALF_LIFE = Duration.ofMinutes(15);
+    public static final double WITHDRAWAL_PENALTY = 1000;
+    public static final double CHANGE_PENALTY = 500;
+    public static final double SUPPRESS_LIMIT = 2000;
+    private static final double HALF_LIFE_MILLIS = HALF_LIFE.toMillis();
+
+    private final Object nodes[];
+    private final int ips[], masks[], flaps[];
+    private final double penalties[], scores[];
+    private final long updated[];
+    private final int shown;
+    private int size;
+
+    /**
+     * @param shown how many prefixes {@link #unstable()} returns
+     * @param capacity how many candidates to track, at least shown
+     */
+    public FlapStatistics(int shown, int capacity) {
+        this.shown = Math.min(shown, capacity);
+        nodes = new Object[capacity];
+        ips = new int[capacity];
+        masks = new int[capacity];
+        flaps = new int[capacity];
+        penalties = new double[capacity];
+        scores = new double[capacity];
+        updated = new long[capacity];
+        size = 0;
+    }
+
+    /**
+     * Decays a penalty last updated at time since (epoch milliseconds) to now.
+     */
+    public static double decay(double penalty, long since, long now) {
+        return penalty == 0 ? 0 : penalty * Math.pow(0.5, (now - since) / HALF_LIFE_MILLIS);
+    }
+
+    /**
+     * Records that node, the route for ip/mask, now has the given penalty.
+     * The score is log2(penalty) shifted by the number of half-lives since the
+     * epoch, which ranks prefixes the same way their decayed penalties would
+     * at any moment.
+     */
+    public synchronized void update(Object node, int ip, int mask, int flapCount, double penalty, long now) {
+        if (penalty <= 0) {
+            return;
+        }
+        double score = Math.log(penalty) / Math.log(2) + now / HALF_LIFE_MILLIS;
+
+        int i = indexOf(node);
+        if (i >= 0) {
+            delete(i);
+        } else if (size == nodes.length && score <= scores[size - 1]) {
+            return; // not unstable enough to make the list
+        }
+        if (size == nodes.length) {
+            size--; // evict the most stable entry
+        }
+
+        int j = size;
+        while (j > 0 && scores[j - 1] < score) {
+            copy(j - 1, j);
+            j--;
+        }
+        nodes[j] = node;
+        ips[j] = ip;
+        masks[j] = mask;
+        flaps[j] = flapCount;
+        penalties[j] = penalty;
+        scores[j] = score;
+        updated[j] = now;
+        size++;
+    }
+
+    public synchronized void remove(Object node) {
+        int i = indexOf(node);
+        if (i >= 0) {
+            delete(i);
+        }
+    }
+
+    public synchronized void clear() {
+        for (int i = 0 ; i < size ; i++) {
+            nodes[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * @return up to shown of the tracked prefixes, most unstable first, with
+     * penalties decayed to the present. Prefixes whose penalty has decayed
+     * below 1 are stable again and left out.
+     */
+    public synchronized List<Flap> unstable() {
+        long now = System.currentTimeMillis();
+        int n = Math.min(shown, size);
+        List<Flap> list = new ArrayList<>(n);
+        for (int i = 0 ; i < n ; i++) {
+            double penalty = decay(penalties[i], updated[i], now);
+            if (penalty < 1) {
+                break; // the list is sorted, so the rest have decayed too
+            }
+            list.add(new Flap(ips[i], masks[i], flaps[i], penalty));
+        }
+        return list;
+    }
+
+    private int indexOf(Object node) {
+        for (int i = 0 ; i < size ; i++) {
+            if (nodes[i] == node) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void delete(int i) {
+        for (int j = i ; j < size - 1 ; j++) {
+            copy(j + 1, j);
+        }
+        size--;
+        nodes[size] = null;
+    }
+
+    private void copy(int from, int to) {
+        nodes[to] = nodes[from];
+        ips[to] = ips[from];
+        masks[to] = masks[from];
+        flaps[to] = flaps[from];
+        penalties[to] = penalties[from];
+        scores[to] = scores[from];
+        updated[to] = updated[from];
+    }
+
+    public static class Flap {
+        public final int ip, mask, flaps;
+        public final double penalty;
+
+        public Flap(int ip, int mask, int flaps, double penalty) {
+            this.ip = ip;
+            this.mask = mask;
+            this.flaps = flaps;
+            this.penalty = penalty;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-19s\t%4d flaps\t%6.0f penalty%s",
+                    IP.toString(ip) + "/" + Integer.bitCount(mask), flaps, penalty,
+                    penalty >= SUPPRESS_LIMIT ? " (suppressed)" : "");
+        }
+    }
+}
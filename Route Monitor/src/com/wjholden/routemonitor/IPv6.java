@@ -0,0 +1,91 @@
+package com.wjholden.routemonitor;
+
+/**
+ * IPv6 addresses are held as two longs: the high 64 bits and the low 64 bits.
+ * We parse and format them by hand so that nothing on the packet path ever
+ * touches BigInteger or InetAddress.
+ *
+ * @author William John Holden (wjholden@gmail.com)
+ */
+public class IPv6 {
+    public static String toString(long high, long low) {
+        int hextets[] = new int[8];
+        for (int j = 0 ; j < 4 ; j++) {
+            hextets[j] = (int) (high >>> (48 - 16 * j)) & 0xffff;
+            hextets[j + 4] = (int) (low >>> (48 - 16 * j)) & 0xffff;
+        }
+
+        // RFC 5952: compress the longest run of two or more zero hextets.
+        int bestStart = -1, bestLength = 1;
+        for (int j = 0 ; j < hextets.length ; j++) {
+            int k = j;
+            while (k < hextets.length && hextets[k] == 0) {
+                k++;
+            }
+            if (k - j > bestLength) {
+                bestStart = j;
+                bestLength = k - j;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(39);
+        for (int j = 0 ; j < hextets.length ; j++) {
+            if (j == bestStart) {
+                sb.append("::");
+                j += bestLength - 1;
+            } else {
+                if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') {
+                    sb.append(':');
+                }
+                sb.append(Integer.toHexString(hextets[j]));
+            }
+        }
+        return sb.toString();
+    }
+
+    public static long[] toLongs(String s) {
+        String halves[] = s.split("::", -1);
+        if (halves.length > 2) {
+            throw new IllegalArgumentException("Invalid IPv6 address: " + s);
+        }
+
+        int hextets[] = new int[8];
+        String head[] = halves[0].isEmpty() ? new String[0] : halves[0].split(":");
+        String tail[] = halves.length < 2 || halves[1].isEmpty() ? new String[0] : halves[1].split(":");
+        if (head.length + tail.length > 8 || (halves.length == 1 && head.length != 8)) {
+            throw new IllegalArgumentException("Invalid IPv6 address: " + s);
+        }
+        for (int j = 0 ; j < head.length ; j++) {
+            hextets[j] = hextet(head[j], s);
+        }
+        for (int j = 0 ; j < tail.length ; j++) {
+            hextets[8 - tail.length + j] = hextet(tail[j], s);
+        }
+
+        long ip[] = new long[2];
+        for (int j = 0 ; j < hextets.length ; j++) {
+            ip[j / 4] = (ip[j / 4] << 16) | (hextets[j] & 0xffff);
+        }
+        return ip;
+    }
+
+    private static int hextet(String h, String s) {
+        // parseInt alone would take "12345" or "-1" and we would silently
+        // monitor the wrong supernet.
+        if (!h.matches("[0-9a-fA-F]{1,4}")) {
+            throw new IllegalArgumentException("Invalid IPv6 address: " + s);
+        }
+        return Integer.parseInt(h, 16);
+    }
+
+    public static void main(String args[]) {
+        String[] tests = { "::", "::1", "2001:db8::", "2001:db8:0:1::5",
+            "fe80::1:0:0:1", "ff02::9", "2001:db8:1:2:3:4:5:6" };
+        for (String t : tests) {
+            long ip[] = IPv6.toLongs(t);
+            System.out.printf("%s = %s (%b)%n", t,
+                    IPv6.toString(ip[0], ip[1]),
+                    t.equals(IPv6.toString(ip[0], ip[1])));
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.wjholden.routemonitor;
+
+import java.util.Arrays;
+
+/**
+ * Latency and drop accounting for stamped packets from {@link RIPGenerator}.
+ * Each stamp carries the System.nanoTime() at which it was sent. On Linux and
+ * Windows that clock is shared by every process on the host, so the generator
+ * and monitor may run in separate JVMs as long as they are on the same machine.
+ *
+ * We measure two things: the time from send until the routes in the packet are
+ * in the trie, and the time from send until the panel showing the oldest
+ * change not yet painted has painted it. Only changes to routes that overlap a
+ * watched panel count for the second, so if no panel covers the generated
+ * routes there are no pixel samples at all.
+ *
+ * @author William John Holden (wjholden@gmail.com)
+ */
+public class Latency {
+
+    private static final Histogram update = new Histogram(), paint = new Histogram();
+    private static int run, first, last;
+    private static long received;
+    private static volatile long pending = 0;
+    private static int pendingIp, pendingMask;
+    private static int watchedIps[] = new int[0], watchedMasks[] = new int[0];
+
+    /**
+     * Counts a stamped packet. Sequence numbers that never arrive are drops.
+     * A new run identifier starts the statistics over.
+     */
+    public static synchronized void received(int run, int sequence) {
+        if (received == 0 || run != Latency.run) {
+            Latency.run = run;
+            first = last = sequence;
+            received = 0;
+            update.clear();
+            paint.clear();
+            pending = 0;
+        }
+        first = Math.min(first, sequence);
+        last = Math.max(last, sequence);
+        received++;
+    }
+
+    /**
+     * Registers a supernet drawn by a panel.
+     */
+    public static synchronized void watch(int ip, int mask) {
+        watchedIps = Arrays.copyOf(watchedIps, watchedIps.length + 1);
+        watchedMasks = Arrays.copyOf(watchedMasks, watchedMasks.length + 1);
+        watchedIps[watchedIps.length - 1] = ip;
+        watchedMasks[watchedMasks.length - 1] = mask;
+    }
+
+    /**
+     * @return whether ip/mask overlaps any watched supernet.
+     */
+    public static synchronized boolean watched(int ip, int mask) {
+        for (int i = 0 ; i < watchedIps.length ; i++) {
+            if (overlaps(ip, mask, watchedIps[i], watchedMasks[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean overlaps(int ip1, int mask1, int ip2, int mask2) {
+        int common = mask1 & mask2; // the shorter of the two masks
+        return (ip1 & common) == (ip2 & common);
+    }
+
+    /**
+     * Records that a stamped packet has been applied to the trie. If it
+     * changed ip/mask, a route in a watched supernet, it is owed a paint.
+     */
+    public static synchronized void updated(long sent, boolean changed, int ip, int mask) {
+        update.record(System.nanoTime() - sent);
+        if (changed && pending == 0) {
+            pending = sent;
+            pendingIp = ip;
+            pendingMask = mask;
+        }
+    }
+
+    /**
+     * @return the send time of the oldest change not yet painted, or 0.
+     */
+    public static long pending() {
+        return pending;
+    }
+
+    /**
+     * Records that the panel for ip/mask has finished a paint which started
+     * while sent was pending. Panels that do not show the change are ignored.
+     */
+    public static synchronized void painted(long sent, int ip, int mask) {
+        if (pending == sent && overlaps(pendingIp, pendingMask, ip, mask)) {
+            paint.record(System.nanoTime() - sent);
+            pending = 0;
+        }
+    }
+
+    public static synchronized boolean active() {
+        return received > 0;
+    }
+
+    public static synchronized String report() {
+        long expected = (long) last - first + 1;
+        return String.format("%d packets received, %d dropped (%.2f%%)%n"
+                + "send to trie:  %s%n"
+                + "send to pixel: %s",
+                received, expected - received,
+                expected == 0 ? 0 : 100.0 * (expected - received) / expected,
+                update, paint);
+    }
+
+    /**
+     * A log-linear histogram: 16 buckets per power of two, so any percentile
+     * is within about 6% of the true value, in a fixed 8 KB of longs.
+     */
+    private static class Histogram {
+        private final long counts[] = new long[1024];
+        private long count, max;
+
+        void record(long nanos) {
+            long v = Math.max(0, nanos);
+            counts[index(v)]++;
+            count++;
+            max = Math.max(max, v);
+        }
+
+        void clear() {
+            Arrays.fill(counts, 0);
+            count = max = 0;
+        }
+
+        private static int index(long v) {
+            if (v < 16) {
+                return (int) v;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(v);
+            return (exponent - 3) * 16 + (int) ((v >>> (exponent - 4)) & 15);
+        }
+
+        private static long value(int index) {
+            if (index < 16) {
+                return index;
+            }
+            return (16L + index % 16) << (index / 16 - 1);
+        }
+
+        long percentile(double p) {
+            long rank = (long) Math.ceil(p / 100 * count), seen = 0;
+            for (int i = 0 ; i < counts.length ; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return value(i);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms (%d samples)",
+                    percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6,
+                    max / 1e6, count);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.wjholden.routemonitor;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
@@ -22,8 +23,12 @@ public class RIP implements Runnable, Closeable {
     private final InetAddress GROUP;
     private static final int PORT = 520;
     private static final int MTU = 1500;
+    private static final short AUTHENTICATION = (short) 0xffff;
     private MulticastSocket socket;
     private static final Duration TIMEOUT = Duration.ofSeconds(180);
+    // where route changes and latency reports go; main() keeps stdout for
+    // the exported table
+    private static PrintStream log = System.out;
     
     public RIP(Trie trie) throws UnknownHostException {
         this.trie = trie;
@@ -37,37 +42,67 @@ public class RIP implements Runnable, Closeable {
             @Override
             public void run() {
                 trie.purge(TIMEOUT);
+                if (Latency.active()) {
+                    log.println(Latency.report());
+                }
             }
             
         }, 10000, 10000); // every 10 seconds
     }
     
     private static void parse(Trie trie, ByteBuffer buffer) {
+        // Every entry, route or authentication, is 20 bytes. A malformed
+        // packet is logged and dropped; throwing here would kill the listener.
+        if (buffer.remaining() < 4) {
+            System.err.println("Ignoring RIP packet of " + buffer.remaining() + " bytes");
+            return;
+        }
         byte command = buffer.get();
         byte version = buffer.get();
         short mustBeZero = buffer.getShort();
         
         if (command == 2) { // response code
-            while (buffer.hasRemaining()) {
+            long stamp = 0;
+            boolean changed = false;
+            int changedIp = 0, changedMask = 0;
+            while (buffer.remaining() >= 20) {
                 short addressFamily = buffer.getShort();
                 
-                if (addressFamily == 0xffff) { // authentication
+                if (addressFamily == AUTHENTICATION) {
                     short authenticationType = buffer.getShort();
-                    byte[] authentication = new byte[16];
-                    buffer.get(authentication, 0, 16);
-                } else if (addressFamily == 2 && buffer.remaining() >= 20) { // ipv4
+                    if (authenticationType == RIPGenerator.STAMP) {
+                        int run = buffer.getInt();
+                        int sequence = buffer.getInt();
+                        stamp = buffer.getLong();
+                        Latency.received(run, sequence);
+                    } else {
+                        byte[] authentication = new byte[16];
+                        buffer.get(authentication, 0, 16);
+                    }
+                } else if (addressFamily == 2) { // ipv4
                     short tag = buffer.getShort();
                     int ip = buffer.getInt();
                     int mask = buffer.getInt();
                     int nextHop = buffer.getInt();
                     int metric = buffer.getInt();
-                    if (trie.set(ip, mask, metric)) {                    
-                        System.out.printf("%s\t%-19s\t%2d%n", Instant.now(), IP.toString(ip) + "/" + Integer.bitCount(mask), metric);
+                    if (trie.set(ip, mask, metric)) {
+                        if (stamp != 0 && !changed && Latency.watched(ip, mask)) {
+                            changed = true;
+                            changedIp = ip;
+                            changedMask = mask;
+                        }
+                        log.printf("%s\t%-19s\t%2d%n", Instant.now(), IP.toString(ip) + "/" + Integer.bitCount(mask), metric);
                     }
-                } else if (addressFamily == 2 && buffer.remaining() < 20) {
-                    throw new RuntimeException("Not enough bytes in buffer!");
+                } else {
+                    buffer.position(buffer.position() + 18); // not an address family we know
                 }
             }
+            if (buffer.hasRemaining()) {
+                System.err.println("Ignoring " + buffer.remaining() + " trailing bytes in RIP packet");
+            }
+            if (stamp != 0) {
+                Latency.updated(stamp, changed, changedIp, changedMask);
+            }
         }
     }
     
@@ -80,6 +115,7 @@ public class RIP implements Runnable, Closeable {
                 ByteBuffer buffer = ByteBuffer.allocate(MTU);
                 DatagramPacket packet = new DatagramPacket(buffer.array(), buffer.capacity());
                 socket.receive(packet);
+                buffer.limit(packet.getLength());
                 RIP.parse(trie, buffer);
             }
         } catch (IOException ex) {
@@ -87,14 +123,29 @@ public class RIP implements Runnable, Closeable {
         }
     }
     
+    /**
+     * Listens until a key is pressed, then writes the routing table. The
+     * optional arguments choose the format (dot, table or csv) and a supernet
+     * to limit it to, for example: csv 10.0.0.0 255.0.0.0. Only the table
+     * goes to stdout, so it can be redirected to a file; everything else goes
+     * to stderr.
+     */
     public static void main(String[] args) {
+        Trie.Format format = args.length > 0 ? Trie.Format.valueOf(args[0].toUpperCase()) : Trie.Format.DOT;
+        int ip = args.length > 2 ? IP.toInteger(args[1]) : 0;
+        int mask = args.length > 2 ? IP.toInteger(args[2]) : 0;
+        log = System.err;
         Trie trie = new BinaryRoutingTrie();
         try (RIP rip = new RIP(trie)) {
             Thread thread = new Thread(rip);
             thread.start();
-            System.out.println("Press any key to continue...");
+            log.println("Press any key to continue...");
             System.in.read();
-            System.out.println("digraph {\n" + trie + "}");
+            trie.export(System.out, format, ip, mask);
+            trie.unstable().forEach(log::println);
+            if (Latency.active()) {
+                log.println(Latency.report());
+            }
         } catch (IOException ex) {
             System.err.println(ex);
         }
@@ -0,0 +1,159 @@
+package com.wjholden.routemonitor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends RIPv2 responses to a monitor on this host so we can find out how large
+ * a network it can keep up with. The table is a run of up to 65,536 /24s
+ * starting at 10.0.0.0, so it never leaves 10.0.0.0/8, sent 24 routes per
+ * packet, at a fixed packet rate.
+ *
+ * Each packet starts with an authentication entry of our own type holding a
+ * run identifier, a sequence number and the send time. {@link RIP} counts
+ * these and reports drops and latency through {@link Latency}. Real routers
+ * never send this authentication type.
+ *
+ * @author William John Holden (wjholden@gmail.com)
+ */
+public class RIPGenerator implements Runnable, Closeable {
+
+    public static final short STAMP = 0x5254;
+    private static final int PORT = 520;
+    private static final int ROUTES_PER_PACKET = 24;
+    private static final int FIRST = IP.toInteger("10.0.0.0");
+    private static final int MASK = 0xffffff00;
+    private static final int MAX_ROUTES = 1 << 16; // every /24 in 10.0.0.0/8
+    private final static String USAGE = "java -cp Route_Monitor.jar com.wjholden.routemonitor.RIPGenerator [routes [packets-per-second [steady|withdraw|flap [seconds]]]]\n"
+            + "routes:   1 to 65536 /24s from 10.0.0.0/8\n"
+            + "steady:   refresh every route with the same metric each cycle\n"
+            + "withdraw: alternate cycles of the full table and a mass withdrawal (metric 16)\n"
+            + "flap:     withdraw and restore every tenth route on alternate cycles\n"
+            + "Example: java -cp Route_Monitor.jar com.wjholden.routemonitor.RIPGenerator 10000 1000 flap 60";
+
+    public enum Pattern {
+        STEADY, WITHDRAW, FLAP
+    }
+
+    private final DatagramSocket socket;
+    private final InetAddress target;
+    private final int routes, rate;
+    private final Pattern pattern;
+    private final Duration duration;
+    private long sent, advertised, cycles;
+
+    public RIPGenerator(int routes, int rate, Pattern pattern, Duration duration) throws IOException {
+        this.routes = routes;
+        this.rate = rate;
+        this.pattern = pattern;
+        this.duration = duration;
+        target = InetAddress.getLoopbackAddress();
+        socket = new DatagramSocket();
+    }
+
+    private int metric(int route, long cycle) {
+        int metric = 1 + route % 15;
+        switch (pattern) {
+            case WITHDRAW:
+                return cycle % 2 == 0 ? metric : 16;
+            case FLAP:
+                return route % 10 == 0 && cycle % 2 == 1 ? 16 : metric;
+            default:
+                return metric;
+        }
+    }
+
+    @Override
+    public void run() {
+        final int runId = new Random().nextInt();
+        final long interval = 1000000000L / rate;
+        final long end = System.nanoTime() + duration.toNanos();
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + 20 * (ROUTES_PER_PACKET + 1));
+        final DatagramPacket packet = new DatagramPacket(buffer.array(), 0, target, PORT);
+
+        long next = System.nanoTime();
+        int sequence = 0;
+        try {
+            for (cycles = 0 ; System.nanoTime() < end ; cycles++) {
+                for (int route = 0 ; route < routes && System.nanoTime() < end ; ) {
+                    buffer.clear();
+                    buffer.put((byte) 2); // response
+                    buffer.put((byte) 2); // version
+                    buffer.putShort((short) 0);
+
+                    buffer.putShort((short) 0xffff);
+                    buffer.putShort(STAMP);
+                    buffer.putInt(runId);
+                    buffer.putInt(sequence++);
+                    int stamp = buffer.position();
+                    buffer.putLong(0);
+
+                    for (int i = 0 ; i < ROUTES_PER_PACKET && route < routes ; i++, route++) {
+                        buffer.putShort((short) 2); // ipv4
+                        buffer.putShort((short) 0); // tag
+                        buffer.putInt(FIRST + (route << 8));
+                        buffer.putInt(MASK);
+                        buffer.putInt(0); // next hop
+                        buffer.putInt(metric(route, cycles));
+                        advertised++;
+                    }
+
+                    // sleep until the next slot, but never try to catch up
+                    // by more than one packet if we have fallen behind.
+                    next += interval;
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    } else if (wait < -interval) {
+                        next = System.nanoTime();
+                    }
+
+                    buffer.putLong(stamp, System.nanoTime());
+                    packet.setLength(buffer.position());
+                    socket.send(packet);
+                    sent++;
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            int routes = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+            int rate = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+            Pattern pattern = args.length > 2 ? Pattern.valueOf(args[2].toUpperCase()) : Pattern.STEADY;
+            Duration duration = Duration.ofSeconds(args.length > 3 ? Long.parseLong(args[3]) : 60);
+            if (routes < 1 || routes > MAX_ROUTES || rate < 1) {
+                throw new IllegalArgumentException();
+            }
+
+            try (RIPGenerator generator = new RIPGenerator(routes, rate, pattern, duration)) {
+                System.out.printf("Sending %d routes (%s) at %d packets/s for %s%n", routes, pattern, rate, duration);
+                long start = System.nanoTime();
+                generator.run();
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("Sent %d packets in %d cycles, %.1f packets/s, %.1f routes/s%n",
+                        generator.sent, generator.cycles, generator.sent / seconds,
+                        generator.advertised / seconds);
+            }
+        } catch (IllegalArgumentException ex) {
+            System.out.println(USAGE);
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,173 @@
+package com.wjholden.routemonitor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.DatagramPacket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * RIPng (RFC 2080) listener. Route table entries carry the prefix as 16 raw
+ * bytes, which we read straight into two longs for the trie.
+ *
+ * @author William John Holden (wjholden@gmail.com)
+ */
+public class RIPng implements Runnable, Closeable {
+
+    private final Trie6 trie;
+    private final InetSocketAddress GROUP;
+    private final List<NetworkInterface> networkInterfaces;
+    private static final int PORT = 521;
+    private static final int MTU = 1500;
+    private static final int NEXT_HOP = 0xff;
+    private MulticastSocket socket;
+    private static final Duration TIMEOUT = Duration.ofSeconds(180);
+    // where route changes go; main() keeps stdout for the exported table
+    private static PrintStream log = System.out;
+
+    /**
+     * Listens on every link that could carry RIPng.
+     */
+    public RIPng(Trie6 trie) throws IOException {
+        this(trie, eligibleInterfaces());
+    }
+
+    /**
+     * ff02::9 is link-scoped, so we have to say which links to listen on.
+     */
+    public RIPng(Trie6 trie, List<NetworkInterface> networkInterfaces) throws IOException {
+        this.trie = trie;
+        this.networkInterfaces = networkInterfaces;
+        GROUP = new InetSocketAddress(InetAddress.getByName("ff02::9"), PORT);
+
+        // a timer to try to purge the trie of any routes learned more than
+        // 180 seconds ago.
+        Timer timer = new Timer("RIPng Timeout", true);
+        timer.schedule(new TimerTask() {
+
+            @Override
+            public void run() {
+                trie.purge(TIMEOUT);
+            }
+
+        }, 10000, 10000); // every 10 seconds
+    }
+
+    /**
+     * @return every interface that is up, can multicast and has an IPv6
+     * address. On a multi-homed host we cannot guess which link the routers
+     * are on, so we listen on all of them.
+     */
+    public static List<NetworkInterface> eligibleInterfaces() throws SocketException {
+        List<NetworkInterface> eligible = new ArrayList<>();
+        for (NetworkInterface n : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (n.isUp() && n.supportsMulticast() && !n.isLoopback()) {
+                for (InetAddress address : Collections.list(n.getInetAddresses())) {
+                    if (address instanceof Inet6Address) {
+                        eligible.add(n);
+                        break;
+                    }
+                }
+            }
+        }
+        return eligible;
+    }
+
+    private static void parse(Trie6 trie, ByteBuffer buffer) {
+        byte command = buffer.get();
+        byte version = buffer.get();
+        short mustBeZero = buffer.getShort();
+
+        if (command == 2) { // response code
+            while (buffer.remaining() >= 20) {
+                long high = buffer.getLong();
+                long low = buffer.getLong();
+                short tag = buffer.getShort();
+                int length = buffer.get() & 0xff;
+                int metric = buffer.get() & 0xff;
+
+                if (metric == NEXT_HOP) {
+                    continue; // next hop entries carry no route
+                }
+                if (length > 128) {
+                    // a malformed entry should not take down the listener
+                    System.err.println("Ignoring RIPng route with prefix length " + length);
+                    continue;
+                }
+                if (trie.set(high, low, length, metric)) {
+                    log.printf("%s\t%-43s\t%2d%n", Instant.now(), IPv6.toString(high, low) + "/" + length, metric);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            socket = new MulticastSocket(PORT);
+            if (networkInterfaces.isEmpty()) {
+                socket.joinGroup(GROUP, null); // let the operating system choose
+            }
+            for (NetworkInterface n : networkInterfaces) {
+                socket.joinGroup(GROUP, n);
+            }
+            while (true) {
+                ByteBuffer buffer = ByteBuffer.allocate(MTU);
+                DatagramPacket packet = new DatagramPacket(buffer.array(), buffer.capacity());
+                socket.receive(packet);
+                buffer.limit(packet.getLength());
+                RIPng.parse(trie, buffer);
+            }
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+    }
+
+    /**
+     * Listens until a key is pressed, then writes the routing table. The
+     * optional arguments choose the format (dot, table or csv) and a supernet
+     * to limit it to, for example: csv 2001:db8:: 32. Only the table
+     * goes to stdout, so it can be redirected to a file; everything else goes
+     * to stderr.
+     */
+    public static void main(String[] args) {
+        Trie.Format format = args.length > 0 ? Trie.Format.valueOf(args[0].toUpperCase()) : Trie.Format.DOT;
+        long ip[] = args.length > 2 ? IPv6.toLongs(args[1]) : new long[2];
+        int length = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        log = System.err;
+        Trie6 trie = new BinaryRoutingTrie6();
+        try (RIPng ripng = new RIPng(trie)) {
+            Thread thread = new Thread(ripng);
+            thread.start();
+            log.println("Press any key to continue...");
+            System.in.read();
+            trie.export(System.out, format, ip[0], ip[1], length);
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (networkInterfaces.isEmpty()) {
+            socket.leaveGroup(GROUP, null);
+        }
+        for (NetworkInterface n : networkInterfaces) {
+            socket.leaveGroup(GROUP, n);
+        }
+        socket.close();
+    }
+}
@@ -22,15 +22,22 @@ import javax.swing.JPanel;
 public final class SupernetFrame extends JFrame implements KeyListener {
 
     private final Trie trie = new BinaryRoutingTrie();
+    private final Trie6 trie6 = new BinaryRoutingTrie6();
+    private boolean ipv4, ipv6;
     private final static String USAGE = "java -jar (ip-address subnet-mask description)+\n"
-            + "Example: java -jar 192.0.2.0 255.255.255.0 \"TEST-NET-1\" 198.51.100.0 255.255.255.0 \"TEST-NET-2\" 203.0.113.0 255.255.255.0 \"TEST-NET-3\"";
+            + "Example: java -jar 192.0.2.0 255.255.255.0 \"TEST-NET-1\" 198.51.100.0 255.255.255.0 \"TEST-NET-2\" 203.0.113.0 255.255.255.0 \"TEST-NET-3\"\n"
+            + "IPv6 supernets take a prefix length instead of a subnet mask. Each pixel is a prefix 16 bits longer than the supernet, so a /48 is drawn as its /64s.\n"
+            + "Example: java -jar 2001:db8:: 48 \"DOCUMENTATION\"";
     private final static String HELP
             = "a: show about\n"
             + "c: clear routing table\n"
+            + "d: toggle coloring by flap dampening penalty\n"
             + "f: toggle fullscreen\n"
             + "h: show this help (also F1 and ?)\n"
+            + "l: show latency and drops measured from RIPGenerator\n"
             + "q: quit\n"
             + "r: refresh screen\n"
+            + "u: show most unstable prefixes\n"
             + "+: enlarge panels\n"
             + "-: shrink panels\n"
             + "0: reset panel scale\n"
@@ -57,8 +64,19 @@ public final class SupernetFrame extends JFrame implements KeyListener {
             JPanel outer = new JPanel();
             outer.setLayout(new BoxLayout(outer, BoxLayout.Y_AXIS));
 
-            SupernetPanel panel = new SupernetPanel(trie, IP.toInteger(networks[i]),
-                    IP.toInteger(networks[i + 1]), networks[i + 2], transform);
+            SupernetPanel panel;
+            if (networks[i].contains(":")) {
+                long ip[] = IPv6.toLongs(networks[i]);
+                int length = Integer.parseInt(networks[i + 1]);
+                int pixelLength = Math.min(128, length + 16);
+                panel = new SupernetPanel(trie6, ip[0], ip[1], length, pixelLength,
+                        networks[i + 2], transform);
+                ipv6 = true;
+            } else {
+                panel = new SupernetPanel(trie, IP.toInteger(networks[i]),
+                        IP.toInteger(networks[i + 1]), networks[i + 2], transform);
+                ipv4 = true;
+            }
             outer.add(panel);
             outer.add(new JLabel(panel.prefix));
             panels.add(panel);
@@ -75,9 +93,16 @@ public final class SupernetFrame extends JFrame implements KeyListener {
 
     private void startRip() {
         try {
-            RIP rip = new RIP(trie);
-            Thread thread = new Thread(rip);
-            thread.start();
+            if (ipv4) {
+                RIP rip = new RIP(trie);
+                Thread thread = new Thread(rip);
+                thread.start();
+            }
+            if (ipv6) {
+                RIPng ripng = new RIPng(trie6);
+                Thread thread = new Thread(ripng);
+                thread.start();
+            }
         } catch (IOException ex) {
             System.err.println(ex);
             JOptionPane.showMessageDialog(this, ex.getMessage(), "Error in RIP thread", JOptionPane.ERROR_MESSAGE);
@@ -102,7 +127,7 @@ public final class SupernetFrame extends JFrame implements KeyListener {
     }
 
     public static void main(String args[]) {
-        if (args.length == 0 || args[0].matches("^.*[a-zA-Z]+.*$") || args.length % 3 > 0) {
+        if (args.length == 0 || args[0].matches("^[^:]*[a-zA-Z]+[^:]*$") || args.length % 3 > 0) {
             System.out.println(USAGE);
             return;
         }
@@ -123,6 +148,7 @@ public final class SupernetFrame extends JFrame implements KeyListener {
                 break;
             case 'c':
                 trie.clear();
+                trie6.clear();
                 break;
             case '?': /* fall through */
             case 'h':
@@ -131,9 +157,26 @@ public final class SupernetFrame extends JFrame implements KeyListener {
             case 'a':
                 JOptionPane.showMessageDialog(this, ABOUT);
                 break;
+            case 'l':
+                JOptionPane.showMessageDialog(this,
+                        Latency.active() ? Latency.report() : "No packets from RIPGenerator",
+                        "Latency", JOptionPane.INFORMATION_MESSAGE);
+                break;
             case 'r':
                 refresh();
                 break;
+            case 'd':
+                SupernetPanel.setFlapMode(!SupernetPanel.isFlapMode());
+                refresh();
+                break;
+            case 'u':
+                StringBuilder unstable = new StringBuilder();
+                trie.unstable().forEach(f -> unstable.append(f).append('\n'));
+                unstable.append(unstable.length() == 0 ? "No flapping prefixes\n" : "")
+                        .append("(approximate: purged prefixes return when they flap again)");
+                JOptionPane.showMessageDialog(this, unstable.toString(),
+                        "Unstable Prefixes", JOptionPane.WARNING_MESSAGE);
+                break;
             case '+':
                 transform.scale(1.1, 1.1);
                 refresh();
@@ -8,6 +8,10 @@ import java.awt.event.ActionEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.time.Duration;
+import java.util.function.LongSupplier;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
@@ -19,25 +23,53 @@ import javax.swing.Timer;
  */
 public class SupernetPanel extends JPanel {
     
-    private final Trie trie;
-    private final int ip, mask;
-    private final int prefixLength;
+    private final LongSupplier changes;
+    private final Function<Duration, int[]> colors;
+    private final Supplier<int[]> flapColors;
+    private final LongConsumer painted;
     protected final String prefix;
-    private double lastSupernetPopulation;
+    private long lastChanges, lastPaint;
+    private static final long FLAP_REPAINT = Duration.ofSeconds(10).toNanos();
     private final int height, width;
     private final AffineTransform transform;
     private static Duration colorChangeInterval = Duration.ofMinutes(1);
+    private static boolean flapMode = false;
     
     public SupernetPanel(Trie trie, int ip, int mask, String description, AffineTransform transform) {
-        this.trie = trie;
-        this.ip = ip;
-        this.mask = mask;
+        this(trie::changes, change -> trie.color(ip, mask, change),
+                () -> trie.flapColor(ip, mask),
+                sent -> Latency.painted(sent, ip, mask),
+                32 - Integer.bitCount(mask),
+                IP.toString(ip) + "/" + Integer.bitCount(mask) + " (" + description + ")",
+                transform);
+        Latency.watch(ip, mask);
+    }
+    
+    /**
+     * An IPv6 supernet is drawn with one pixel per pixelLength prefix, so a
+     * /48 with a pixelLength of 64 shows each of its /64s. The IPv6 trie does
+     * not keep flap statistics, so these panels ignore the flap mode, and
+     * RIPGenerator only sends IPv4, so they never record paint latency.
+     */
+    public SupernetPanel(Trie6 trie, long high, long low, int length, int pixelLength, String description, AffineTransform transform) {
+        this(trie::changes, change -> trie.color(high, low, length, pixelLength, change),
+                () -> trie.color(high, low, length, pixelLength, colorChangeInterval),
+                sent -> { },
+                pixelLength - length,
+                IPv6.toString(high, low) + "/" + length + " (" + description + ")",
+                transform);
+    }
+    
+    private SupernetPanel(LongSupplier changes, Function<Duration, int[]> colors, Supplier<int[]> flapColors, LongConsumer painted, int bits, String prefix, AffineTransform transform) {
+        this.changes = changes;
+        this.colors = colors;
+        this.flapColors = flapColors;
+        this.painted = painted;
         this.transform = transform;
-        prefixLength = Integer.bitCount(mask);
-        prefix = IP.toString(ip) + "/" + prefixLength + " (" + description + ")";
-        height = (32 - prefixLength) / 2;
-        width = (32 - prefixLength) - height;
-        lastSupernetPopulation = -1;
+        this.prefix = prefix;
+        height = bits / 2;
+        width = bits - height;
+        lastChanges = -1;
         this.setBackground(Color.BLACK);
         
         Timer timer = new javax.swing.Timer(0, this::updateScreen);
@@ -47,7 +79,7 @@ public class SupernetPanel extends JPanel {
     }
     
     private void updateScreen(ActionEvent e) {
-        double n = trie.population();
+        long n = changes.getAsLong();
         
         // This mess is all about helping the environment by using less energy.
         // We want a low-latency user interface, but we don't need to waste
@@ -60,9 +92,15 @@ public class SupernetPanel extends JPanel {
         // between when a route gets poised. No need for random repaints.
         // Also allows for faster swing timer since this method is effectively
         // free if no painting needs to be done.
-        if (n != lastSupernetPopulation) {
+        //
+        // Change: the trie now counts every real change, not just the ones
+        // that move the population, so a 5 -> 7 metric change is painted too.
+        // Flap penalties also decay with nothing changing, so in flap mode
+        // we repaint every 10 seconds regardless.
+        if (n != lastChanges || (flapMode && System.nanoTime() - lastPaint > FLAP_REPAINT)) {
             this.repaint();
-            lastSupernetPopulation = n;
+            lastChanges = n;
+            lastPaint = System.nanoTime();
         }
         
     }
@@ -77,31 +115,18 @@ public class SupernetPanel extends JPanel {
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        //paintIterateAndRecurse(g);
         paintRecurseAndIterate(g);
     }
     
-    private void paintIterateAndRecurse(Graphics g) {
-        BufferedImage img = new BufferedImage(1 << width, 1 << height, BufferedImage.TYPE_INT_RGB);
-        Trie subtrie = trie.subtrie(ip, mask);
-        
-        if (subtrie == null) {
-            return;
-        }
-        
-        for (int x = 0 ; x < (1 << width) ; x++) {
-            for (int y = 0 ; y < (1 << height) ; y++) {
-                img.setRGB(x, y, subtrie.find(((1 << width) * y + x) << prefixLength, colorChangeInterval).getRGB());
-            }
-        }
-        ((Graphics2D) g).drawImage(img, transform, null);
-    }
-    
     private void paintRecurseAndIterate(Graphics g) {
+        long pending = Latency.pending();
         BufferedImage img = new BufferedImage(1 << width, 1 << height, BufferedImage.TYPE_INT_ARGB);
-        int colors[] = trie.color(ip, mask, colorChangeInterval);
-        img.setRGB(0, 0, 1 << width, 1 << height, colors, 0, 1 << width);
+        int rgb[] = flapMode ? flapColors.get() : colors.apply(colorChangeInterval);
+        img.setRGB(0, 0, 1 << width, 1 << height, rgb, 0, 1 << width);
         ((Graphics2D) g).drawImage(img, transform, null);
+        if (pending != 0) {
+            painted.accept(pending);
+        }
     }
     
     public static void setColorChangeInteveral(final Duration duration) {
@@ -112,6 +137,18 @@ public class SupernetPanel extends JPanel {
         return SupernetPanel.colorChangeInterval;
     }
     
+    /**
+     * In flap mode routes are colored by their dampening penalty, from white
+     * (stable) through yellow to red (suppressed), instead of by age.
+     */
+    public static void setFlapMode(final boolean flapMode) {
+        SupernetPanel.flapMode = flapMode;
+    }
+    
+    public static boolean isFlapMode() {
+        return SupernetPanel.flapMode;
+    }
+    
     private static void createAndShowGUI() {
         JFrame f = new JFrame("SupernetPanel");
         f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -1,19 +1,36 @@
 package com.wjholden.routemonitor;
 
 import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.List;
 
 /**
  *
  * @author William John Holden (wjholden@gmail.com)
  */
 public interface Trie {
+    enum Format { DOT, TABLE, CSV }
+    
     boolean set(int ip, int mask, int metric);
     Trie subtrie(int ip, int mask);
     Trie find(int ip);
     Color find(int ip, Duration change);
     int[] color(int ip, int mask, Duration change);
+    int[] flapColor(int ip, int mask);
+    List<FlapStatistics.Flap> unstable();
     double population();
+    long changes();
     void clear();
     void purge(Duration timeout);
+    void export(Writer out, Format format, int ip, int mask) throws IOException;
+    
+    default void export(OutputStream out, Format format, int ip, int mask) throws IOException {
+        export(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), format, ip, mask);
+    }
 }
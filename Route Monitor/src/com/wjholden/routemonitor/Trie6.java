@@ -0,0 +1,33 @@
+package com.wjholden.routemonitor;
+
+import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * The IPv6 counterpart to {@link Trie}. Addresses are 128 bits split into a
+ * high and a low long, and prefixes are given by length instead of mask.
+ *
+ * @author William John Holden (wjholden@gmail.com)
+ */
+public interface Trie6 {
+    boolean set(long high, long low, int length, int metric);
+    Trie6 subtrie(long high, long low, int length);
+    Trie6 find(long high, long low);
+    Color find(long high, long low, Duration change);
+    int[] color(long high, long low, int length, int pixelLength, Duration change);
+    double population();
+    long changes();
+    void clear();
+    void purge(Duration timeout);
+    void export(Writer out, Trie.Format format, long high, long low, int length) throws IOException;
+    
+    default void export(OutputStream out, Trie.Format format, long high, long low, int length) throws IOException {
+        export(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), format, high, low, length);
+    }
+}
@@ -0,0 +1,173 @@
+package com.wjholden.routemonitor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.Random;
+
+/**
+ * A rough comparison of the IPv4 and IPv6 tries. Both tables get the same
+ * number of random routes and then answer the same number of lookups for
+ * addresses inside those routes. The IPv6 trie walks up to four times as deep,
+ * so expect it to cost somewhat more per lookup, but not orders of magnitude.
+ *
+ * @author William John Holden (wjholden@gmail.com)
+ */
+public class TrieBenchmark {
+
+    private static final int ROUTES = 100000;
+    private static final int LOOKUPS = 1000000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String args[]) {
+        Random random = new Random(520);
+
+        int v4[] = new int[ROUTES], v4Masks[] = new int[ROUTES];
+        long v6High[] = new long[ROUTES], v6Low[] = new long[ROUTES];
+        int v6Lengths[] = new int[ROUTES];
+        for (int i = 0 ; i < ROUTES ; i++) {
+            int length = 16 + random.nextInt(17);
+            v4Masks[i] = length == 0 ? 0 : -1 << (32 - length);
+            v4[i] = random.nextInt() & v4Masks[i];
+
+            // Typical IPv6 routes are /48 through /64 under a /32 allocation,
+            // with the odd /128 loopback thrown in.
+            v6Lengths[i] = random.nextInt(20) == 0 ? 128 : 48 + random.nextInt(17);
+            v6High[i] = 0x20010db800000000L | (random.nextLong() >>> 32);
+            v6Low[i] = random.nextLong();
+            if (v6Lengths[i] <= 64) {
+                v6High[i] &= -1L << (64 - v6Lengths[i]);
+                v6Low[i] = 0;
+            }
+        }
+
+        Trie trie = new BinaryRoutingTrie();
+        Trie6 trie6 = new BinaryRoutingTrie6();
+
+        long start = System.nanoTime();
+        for (int i = 0 ; i < ROUTES ; i++) {
+            trie.set(v4[i], v4Masks[i], 1 + (i % 15));
+        }
+        System.out.printf("IPv4 set:    %8.1f ns/route%n", (System.nanoTime() - start) / (double) ROUTES);
+
+        start = System.nanoTime();
+        for (int i = 0 ; i < ROUTES ; i++) {
+            trie6.set(v6High[i], v6Low[i], v6Lengths[i], 1 + (i % 15));
+        }
+        System.out.printf("IPv6 set:    %8.1f ns/route%n", (System.nanoTime() - start) / (double) ROUTES);
+
+        // Every route changes metric each round, so every call is a real
+        // change rather than a refresh. Withdrawals pay for flap tracking (the
+        // penalty decay and the unstable list), while readvertisements after a
+        // withdrawal cost no penalty and skip it, so the difference between
+        // the two is the overhead flap tracking adds to set().
+        long withdrawTime = 0, readvertiseTime = 0;
+        for (int round = 0 ; round < 2 * ROUNDS ; round++) {
+            boolean withdraw = round % 2 == 0;
+            start = System.nanoTime();
+            for (int i = 0 ; i < ROUTES ; i++) {
+                trie.set(v4[i], v4Masks[i], withdraw ? 16 : 1 + (i % 15));
+            }
+            long time = System.nanoTime() - start;
+            if (round >= 2) { // the first two rounds are warm-up
+                if (withdraw) {
+                    withdrawTime += time;
+                } else {
+                    readvertiseTime += time;
+                }
+            }
+        }
+        double withdrawCost = withdrawTime / (double) (ROUNDS - 1) / ROUTES;
+        double readvertiseCost = readvertiseTime / (double) (ROUNDS - 1) / ROUTES;
+        System.out.printf("IPv4 churn, readvertise (no flap tracking): %8.1f ns/change%n", readvertiseCost);
+        System.out.printf("IPv4 churn, withdraw (flap tracking):       %8.1f ns/change%n", withdrawCost);
+        System.out.printf("Flap tracking overhead:                     %8.1f ns/change (%+.1f%%)%n",
+                withdrawCost - readvertiseCost, 100 * (withdrawCost - readvertiseCost) / readvertiseCost);
+
+        int queries[] = new int[LOOKUPS];
+        long queryHigh[] = new long[LOOKUPS], queryLow[] = new long[LOOKUPS];
+        for (int i = 0 ; i < LOOKUPS ; i++) {
+            int r = random.nextInt(ROUTES);
+            queries[i] = v4[r] | (random.nextInt() & ~v4Masks[r]);
+            if (v6Lengths[r] <= 64) {
+                queryHigh[i] = v6High[r] | (random.nextLong() & ~(-1L << (64 - v6Lengths[r])));
+                queryLow[i] = random.nextLong();
+            } else {
+                queryHigh[i] = v6High[r];
+                queryLow[i] = v6Low[r];
+            }
+        }
+
+        // The first rounds are warm-up for the JIT; the last one is reported.
+        long sink = 0;
+        for (int round = 0 ; round < ROUNDS ; round++) {
+            start = System.nanoTime();
+            for (int i = 0 ; i < LOOKUPS ; i++) {
+                sink += trie.find(queries[i]).hashCode();
+            }
+            long v4Time = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0 ; i < LOOKUPS ; i++) {
+                sink += trie6.find(queryHigh[i], queryLow[i]).hashCode();
+            }
+            long v6Time = System.nanoTime() - start;
+
+            if (round == ROUNDS - 1) {
+                System.out.printf("IPv4 find:   %8.1f ns/lookup%n", v4Time / (double) LOOKUPS);
+                System.out.printf("IPv6 find:   %8.1f ns/lookup%n", v6Time / (double) LOOKUPS);
+            }
+        }
+
+        // Exporting half the address space should take about half as long as
+        // exporting all of it if the exporters are linear.
+        for (Trie.Format format : Trie.Format.values()) {
+            CountingWriter all = new CountingWriter(), half = new CountingWriter();
+            try {
+                trie.export(all, format, 0, 0); // warm-up
+                all.count = 0;
+                start = System.nanoTime();
+                trie.export(all, format, 0, 0);
+                long allTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                trie.export(half, format, 0, 0x80000000);
+                long halfTime = System.nanoTime() - start;
+                System.out.printf("Export %-5s  all: %6.1f ms (%d chars)   half: %6.1f ms (%d chars)%n",
+                        format, allTime / 1e6, all.count, halfTime / 1e6, half.count);
+            } catch (IOException ex) {
+                System.err.println(ex);
+            }
+        }
+
+        start = System.nanoTime();
+        trie.color(0x0a000000, 0xffff0000, Duration.ofMinutes(1));
+        System.out.printf("IPv4 color /16:        %8.3f ms%n", (System.nanoTime() - start) / 1e6);
+        start = System.nanoTime();
+        trie6.color(0x20010db800000000L, 0, 48, 64, Duration.ofMinutes(1));
+        System.out.printf("IPv6 color /48 as /64: %8.3f ms%n", (System.nanoTime() - start) / 1e6);
+
+        System.out.println(sink == 0 ? "" : "(done)");
+    }
+
+    private static class CountingWriter extends Writer {
+        long count = 0;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}